@@ -0,0 +1,109 @@
+package io.tradle.reactimagestore;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * In-memory index of stored images, keyed by file path, so lookups don't hit the filesystem.
+ *
+ * The module wipes the store when it starts (see ImageStoreModule.CleanTask), which leaves nothing
+ * on disk to index, so the index starts empty and is populated as images are added.
+ *
+ * Answers can be stale: the store lives in the cache dir, which the system may clear, and files
+ * may be deleted by path behind our back. Read paths that find a file missing drop its entry.
+ */
+public class ImageStoreIndex {
+
+  public static class Entry {
+    public final String tag;
+    public final String path;
+    public final long size;
+    public final String mimeType;
+    public final long createdAt;
+
+    public Entry(String tag, String path, long size, String mimeType, long createdAt) {
+      this.tag = tag;
+      this.path = path;
+      this.size = size;
+      this.mimeType = mimeType;
+      this.createdAt = createdAt;
+    }
+  }
+
+  private static final ConcurrentHashMap<String, Entry> sEntries = new ConcurrentHashMap<>();
+
+  private static final FilenameFilter TMP_IMAGE_FILTER = new FilenameFilter() {
+    @Override
+    public boolean accept(File dir, String filename) {
+      return ImageStoreUtils.isTmpImageFilename(filename);
+    }
+  };
+
+  public static Entry add(File file, @Nullable String mimeType) {
+    String key = file.getPath();
+    Entry entry = new Entry(
+            Uri.fromFile(file).toString(),
+            key,
+            file.length(),
+            mimeType,
+            System.currentTimeMillis());
+    sEntries.put(key, entry);
+    // deleteAll may have deleted the file before we got here
+    if (!file.exists()) {
+      sEntries.remove(key, entry);
+    }
+
+    return entry;
+  }
+
+  public static boolean contains(String tag) {
+    String key = getKey(tag);
+    return key != null && sEntries.containsKey(key);
+  }
+
+  public static @Nullable Entry remove(String tag) {
+    String key = getKey(tag);
+    return key == null ? null : sEntries.remove(key);
+  }
+
+  /**
+   * Delete all stored images in a directory, dropping them from the index. Each entry is dropped
+   * after its file is deleted, so a concurrent add either sees the file gone or gets dropped here.
+   */
+  public static void deleteAll(File directory) {
+    File[] toDelete = directory.listFiles(TMP_IMAGE_FILTER);
+    if (toDelete != null) {
+      for (File file: toDelete) {
+        file.delete();
+        sEntries.remove(file.getPath());
+      }
+    }
+  }
+
+  public static Collection<Entry> list() {
+    return sEntries.values();
+  }
+
+  public static long getTotalSize() {
+    long total = 0;
+    for (Entry entry: list()) {
+      total += entry.size;
+    }
+
+    return total;
+  }
+
+  /**
+   * Normalize a tag to the path of the file it points to, so equivalent uris
+   * (e.g. "file:/data/..." and "file:///data/...") map to the same entry.
+   */
+  private static @Nullable String getKey(String tag) {
+    return Uri.parse(tag).getPath();
+  }
+}
@@ -3,9 +3,11 @@ package io.tradle.reactimagestore;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.os.AsyncTask;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.GuardedAsyncTask;
 import com.facebook.react.bridge.JavaScriptModule;
 import com.facebook.react.bridge.Promise;
@@ -14,9 +16,11 @@ import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Map;
@@ -26,6 +30,8 @@ public class ImageStoreModule extends ReactContextBaseJavaModule implements Java
   private final ReactApplicationContext reactContext;
   private static final String ERROR_CODE_IO = "io_error";
   private static final String ERROR_CODE_FILE_NOT_FOUND = "file_not_found";
+  private static final String ERROR_CODE_INVALID_REGION = "invalid_region";
+  private static final String ERROR_CODE_OUT_OF_MEMORY = "out_of_memory";
 
   public ImageStoreModule(ReactApplicationContext reactContext) {
     super(reactContext);
@@ -63,25 +69,10 @@ public class ImageStoreModule extends ReactContextBaseJavaModule implements Java
 
     @Override
     protected void doInBackgroundGuarded(Void... params) {
-      cleanDirectory(mContext.getCacheDir());
+      ImageStoreIndex.deleteAll(mContext.getCacheDir());
       File externalCacheDir = mContext.getExternalCacheDir();
       if (externalCacheDir != null) {
-        cleanDirectory(externalCacheDir);
-      }
-    }
-
-    private void cleanDirectory(File directory) {
-      File[] toDelete = directory.listFiles(
-              new FilenameFilter() {
-                @Override
-                public boolean accept(File dir, String filename) {
-                  return ImageStoreUtils.isTmpImageFilename(filename);
-                }
-              });
-      if (toDelete != null) {
-        for (File file: toDelete) {
-          file.delete();
-        }
+        ImageStoreIndex.deleteAll(externalCacheDir);
       }
     }
   }
@@ -115,23 +106,114 @@ public class ImageStoreModule extends ReactContextBaseJavaModule implements Java
     protected void doInBackgroundGuarded(Void... params) {
       try {
         mPromise.resolve(ImageStoreUtils.getImageBase64(getReactApplicationContext(), mUri));
+      } catch (FileNotFoundException e) {
+        ImageStoreIndex.remove(mUri);
+        mPromise.reject(ERROR_CODE_FILE_NOT_FOUND, e.getMessage());
+      } catch (IOException e) {
+        mPromise.reject(ERROR_CODE_IO, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Decode a rectangle of a stored image without decoding the whole image
+   *
+   * @param options "imageTag", "x", "y", "width", "height" (must lie within the image), and optionally "sampleSize",
+   *                "mimeType" (of the output) and "base64" (resolve with base64 instead of a new tag)
+   * @param promise to be resolved with the tag of the new image, or its base64 string
+   */
+  @ReactMethod
+  public void getRegionForTag(ReadableMap options, Promise promise) {
+    String uri = options.getString("imageTag");
+    int x = options.getInt("x");
+    int y = options.getInt("y");
+    int width = options.getInt("width");
+    int height = options.getInt("height");
+    int sampleSize = options.hasKey("sampleSize") ? options.getInt("sampleSize") : 1;
+    if (x < 0 || y < 0 || width <= 0 || height <= 0 || sampleSize < 1 ||
+            width > Integer.MAX_VALUE - x || height > Integer.MAX_VALUE - y) {
+      promise.reject(ERROR_CODE_INVALID_REGION, "Invalid region: x=" + x + ", y=" + y + ", width=" + width +
+              ", height=" + height + ", sampleSize=" + sampleSize);
+      return;
+    }
+
+    Rect region = new Rect(x, y, x + width, y + height);
+    String mimeType = options.hasKey("mimeType") ? options.getString("mimeType") : ImageStoreUtils.getMimeTypeFromPath(uri);
+    boolean base64 = options.hasKey("base64") && options.getBoolean("base64");
+    new GetRegionTask(getReactApplicationContext(), uri, region, sampleSize, mimeType, base64, promise)
+            .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+  }
+
+  private class GetRegionTask extends GuardedAsyncTask<Void, Void> {
+    private final String mUri;
+    private final Rect mRegion;
+    private final int mSampleSize;
+    private final String mMimeType;
+    private final boolean mBase64;
+    private final Promise mPromise;
+
+    private GetRegionTask(
+            ReactContext reactContext,
+            String uri,
+            Rect region,
+            int sampleSize,
+            String mimeType,
+            boolean base64,
+            Promise promise) {
+      super(reactContext);
+      mUri = uri;
+      mRegion = region;
+      mSampleSize = sampleSize;
+      mMimeType = mimeType;
+      mBase64 = base64;
+      mPromise = promise;
+    }
+
+    @Override
+    protected void doInBackgroundGuarded(Void... params) {
+      Bitmap bitmap = null;
+      try {
+        bitmap = ImageStoreUtils.decodeRegion(getReactApplicationContext(), mUri, mRegion, mSampleSize);
+        if (mBase64) {
+          mPromise.resolve(ImageStoreUtils.getBitmapBase64(bitmap, mMimeType));
+        } else {
+          Uri uri = ImageStoreUtils.createTempFileForBitmap(getReactApplicationContext(), bitmap, mMimeType);
+          mPromise.resolve(uri.toString());
+        }
+      } catch (InvalidRegionException e) {
+        mPromise.reject(ERROR_CODE_INVALID_REGION, e.getMessage());
+      } catch (IllegalArgumentException e) {
+        // e.g. a content provider rejecting the query, not a bad region
+        mPromise.reject(ERROR_CODE_IO, e.getMessage());
+      } catch (FileNotFoundException e) {
+        ImageStoreIndex.remove(mUri);
+        mPromise.reject(ERROR_CODE_FILE_NOT_FOUND, e.getMessage());
       } catch (IOException e) {
         mPromise.reject(ERROR_CODE_IO, e.getMessage());
+      } catch (OutOfMemoryError e) {
+        mPromise.reject(ERROR_CODE_OUT_OF_MEMORY, "Region too large to decode, try a larger sampleSize");
+      } finally {
+        if (bitmap != null) {
+          bitmap.recycle();
+        }
       }
     }
   }
 
+  public static Bitmap getRegionForTag(Context context, String uri, Rect region, int sampleSize) throws IOException {
+    return ImageStoreUtils.decodeRegion(context, uri, region, sampleSize);
+  }
+
   /**
-   * Check if an image is present in the cache
+   * Check if an image is present in the cache. Answered from the in-memory index, so it may be stale
+   * if the file was deleted outside of this module (see ImageStoreIndex).
    *
    * @param options "imageTag" (uri to the tmp file) and later other options
    * @param promise to be resolved with the boolean result
    */
   @ReactMethod
   public void hasImageForTag(ReadableMap options, Promise promise) {
-    Uri uri = Uri.parse(options.getString("imageTag"));
-    File file = new File(uri.getPath());
-    promise.resolve(file.exists());
+    promise.resolve(ImageStoreIndex.contains(options.getString("imageTag")));
   }
 
   /**
@@ -142,15 +224,55 @@ public class ImageStoreModule extends ReactContextBaseJavaModule implements Java
    */
   @ReactMethod
   public void removeImageForTag(ReadableMap options, Promise promise) {
-    Uri uri = Uri.parse(options.getString("imageTag"));
-    File file = new File(uri.getPath());
-    if (file.exists()) {
-      file.delete();
+    String tag = options.getString("imageTag");
+    ImageStoreIndex.Entry entry = ImageStoreIndex.remove(tag);
+    if (entry != null) {
+      new File(entry.path).delete();
+    } else {
+      // not indexed, fall back to deleting whatever the uri points to
+      String path = Uri.parse(tag).getPath();
+      if (path != null) {
+        File file = new File(path);
+        if (file.exists()) {
+          file.delete();
+        }
+      }
     }
 
     promise.resolve(null);
   }
 
+  /**
+   * List the images in the cache, from the in-memory index (may be stale, see ImageStoreIndex)
+   *
+   * @param promise to be resolved with an array of {imageTag, size, mimeType, createdAt}
+   */
+  @ReactMethod
+  public void listTags(Promise promise) {
+    WritableArray tags = Arguments.createArray();
+    for (ImageStoreIndex.Entry entry: ImageStoreIndex.list()) {
+      WritableMap tag = Arguments.createMap();
+      tag.putString("imageTag", entry.tag);
+      tag.putDouble("size", entry.size);
+      tag.putString("mimeType", entry.mimeType);
+      tag.putDouble("createdAt", entry.createdAt);
+      tags.pushMap(tag);
+    }
+
+    promise.resolve(tags);
+  }
+
+  /**
+   * Get the total size of the images in the cache, from the in-memory index (may be stale, see
+   * ImageStoreIndex)
+   *
+   * @param promise to be resolved with the size in bytes
+   */
+  @ReactMethod
+  public void getStoreSize(Promise promise) {
+    promise.resolve((double) ImageStoreIndex.getTotalSize());
+  }
+
   /**
    * Add image to cache from base64 string
    *
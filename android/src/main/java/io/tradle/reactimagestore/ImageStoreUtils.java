@@ -4,7 +4,11 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.text.TextUtils;
 import android.util.Base64;
@@ -15,6 +19,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -130,6 +135,7 @@ public class ImageStoreUtils {
           throws IOException {
     File tempFile = createTempFile(context, imageData.mimeType);
     writeBytesToFile(imageData.bytes, tempFile);
+    ImageStoreIndex.add(tempFile, imageData.mimeType);
     return Uri.fromFile(tempFile);
   }
 
@@ -161,6 +167,7 @@ public class ImageStoreUtils {
           throws IOException {
     File dest = createTempFile(context, mimeType);
     compressBitmapToFile(bitmap, mimeType, dest, compressionQuality);
+    ImageStoreIndex.add(dest, mimeType);
     return Uri.fromFile(dest);
   }
 
@@ -169,6 +176,7 @@ public class ImageStoreUtils {
     File source = getFileFromUri(context, imageUri);
     File dest = createTempFile(context, mimeType);
     copyFile(source, dest);
+    ImageStoreIndex.add(dest, mimeType);
     return Uri.fromFile(dest);
   }
 
@@ -247,9 +255,9 @@ public class ImageStoreUtils {
   }
 
   public static @Nullable File getFileFromUri(Context context, Uri uri) {
-    if (uri.getScheme().equals("file")) {
+    if ("file".equals(uri.getScheme())) {
       return new File(uri.getPath());
-    } else if (uri.getScheme().equals("content")) {
+    } else if ("content".equals(uri.getScheme())) {
       Cursor cursor = context.getContentResolver()
               .query(uri, new String[] { MediaStore.MediaColumns.DATA }, null, null, null);
       if (cursor != null) {
@@ -292,6 +300,99 @@ public class ImageStoreUtils {
     }
   }
 
+  /**
+   * Decode only the given rectangle of a stored image, so memory scales with the region rather
+   * than with the source image.
+   *
+   * @param region rectangle in source image coordinates, must lie entirely within the image
+   * @param sampleSize subsampling factor (1 = full resolution, 2 = half, ...)
+   * @throws InvalidRegionException if the region is not entirely within the image
+   */
+  public static Bitmap decodeRegion(Context context, String uriString, Rect region, int sampleSize)
+          throws IOException {
+    BitmapRegionDecoder decoder = newRegionDecoder(context, Uri.parse(uriString));
+    try {
+      int width = decoder.getWidth();
+      int height = decoder.getHeight();
+      if (region.left < 0 || region.top < 0 || region.right > width || region.bottom > height) {
+        throw new InvalidRegionException("Region " + region.toShortString() +
+                " is outside the image bounds [0,0][" + width + "," + height + "]");
+      }
+
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inSampleSize = Math.max(1, sampleSize);
+      Bitmap bitmap = decoder.decodeRegion(region, options);
+      if (bitmap == null) {
+        throw new IOException("Failed to decode region of image: " + uriString);
+      }
+
+      return bitmap;
+    } finally {
+      decoder.recycle();
+    }
+  }
+
+  /**
+   * Open a region decoder on a file descriptor where possible, which lets the platform map the file
+   * rather than copy it. The path and InputStream forms copy the whole encoded image into memory
+   * first, so the stream is only used as a last resort.
+   */
+  private static BitmapRegionDecoder newRegionDecoder(Context context, Uri uri) throws IOException {
+    File file = getFileFromUri(context, uri);
+    if (file != null && file.exists()) {
+      FileInputStream fis = new FileInputStream(file);
+      try {
+        return BitmapRegionDecoder.newInstance(fis.getFD(), false);
+      } finally {
+        closeQuietly(fis);
+      }
+    }
+
+    ContentResolver contentResolver = context.getContentResolver();
+    ParcelFileDescriptor pfd = null;
+    try {
+      pfd = contentResolver.openFileDescriptor(uri, "r");
+    } catch (FileNotFoundException e) {
+      // fall through to the stream
+    }
+
+    if (pfd != null) {
+      try {
+        return BitmapRegionDecoder.newInstance(pfd.getFileDescriptor(), false);
+      } finally {
+        closeQuietly(pfd);
+      }
+    }
+
+    InputStream is = contentResolver.openInputStream(uri);
+    try {
+      return BitmapRegionDecoder.newInstance(is, false);
+    } finally {
+      closeQuietly(is);
+    }
+  }
+
+  public static String getBitmapBase64(Bitmap bitmap, String mimeType, int compressionQuality)
+          throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    Base64OutputStream b64os = new Base64OutputStream(baos, Base64.NO_WRAP);
+    try {
+      bitmap.compress(getCompressFormatForType(mimeType), compressionQuality, b64os);
+    } finally {
+      closeQuietly(b64os); // this also closes baos and flushes the final content to it
+    }
+    return baos.toString();
+  }
+
+  public static String getBitmapBase64(Bitmap bitmap, String mimeType) throws IOException {
+    return getBitmapBase64(bitmap, mimeType, COMPRESS_QUALITY);
+  }
+
+  public static Uri createTempFileForBitmap(Context context, Bitmap bitmap, String mimeType)
+          throws IOException {
+    return createTempFileForBitmap(context, bitmap, mimeType, COMPRESS_QUALITY);
+  }
+
 //  public static InputStream getInputStream(Context context, String uri) throws IOException {
 //    return context.getContentResolver().openInputStream(Uri.parse(uri));
 //  }
@@ -0,0 +1,7 @@
+package io.tradle.reactimagestore;
+
+public class InvalidRegionException extends IllegalArgumentException {
+  public InvalidRegionException(String message) {
+    super(message);
+  }
+}
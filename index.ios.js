@@ -11,6 +11,13 @@ const wrapper = wrapIOSImageStore({
   getBase64ForTag: promisifyFromTwoCallbacks(ImageStore.getBase64ForTag.bind(ImageStore)),
   addImageFromBase64: promisifyFromTwoCallbacks(ImageStore.addImageFromBase64.bind(ImageStore)),
   removeImageForTag: async uri => ImageStore.removeImageForTag(uri),
+  // not supported by the stock iOS ImageStore
+  listTags: async () => {
+    throw new Error('listTags is only supported on Android')
+  },
+  getStoreSize: async () => {
+    throw new Error('getStoreSize is only supported on Android')
+  },
 })
 
 export default wrapper